@@ -0,0 +1,374 @@
+package il.ac.hit.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code ParallelValidation} class builds composite validations that evaluate
+ * expensive rules concurrently on a given {@code Executor}.
+ * <p>
+ * Only rules whose {@link UserValidation#estimatedCost()} is at least the configured threshold
+ * are sent to the executor; cheaper rules run on the calling thread. The composites return the
+ * same results as {@link UserValidation#all}, {@link UserValidation#or} and {@link UserValidation#xor},
+ * including which failure is reported, and cancel any rule whose result is no longer needed.
+ * The one exception is {@link #or}, which passes as soon as either rule passes, even if the
+ * first rule would have thrown.
+ * Each composite estimates its cost as the larger of the summed costs of the rules it runs on the
+ * calling thread and the highest cost among the rules it sends to the executor.
+ * <p>
+ * When the calling thread reaches a rule that is still queued on the executor, it runs that rule
+ * itself, so composites may be nested or applied from the executor's own threads; {@link #or} first
+ * gives the workers a millisecond to pick the rule up. The caller only waits on rules already running
+ * on another thread, so a rule must not block on work that needs a free thread of the same executor
+ * outside of these composites. Interrupting the calling thread
+ * does not fail a composite; the interrupt status is kept for the caller to handle afterwards.
+ */
+public class ParallelValidation {
+    // executor used to run expensive validations
+    private final Executor executor;
+    // how long or() waits for a worker before running a still-queued rule itself
+    private static final long STEAL_DELAY_MILLIS = 1;
+    // minimum estimated cost for a validation to be run on the executor
+    private final long costThreshold;
+
+    /**
+     * Constructs a {@code ParallelValidation} that runs rules on the given executor.
+     *
+     * <p>
+     * The threshold must be positive, so rules with the default cost of {@code 0} always run
+     * on the calling thread.
+     *
+     * @param executor      the executor used to run expensive validations
+     * @param costThreshold the minimum estimated cost for a validation to run on the executor
+     * @throws IllegalArgumentException if {@code executor} is null or {@code costThreshold} is not positive
+     */
+    public ParallelValidation(Executor executor, long costThreshold) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null");
+        }
+        if (costThreshold <= 0) {
+            throw new IllegalArgumentException("Cost threshold must be positive");
+        }
+        this.executor = executor;
+        this.costThreshold = costThreshold;
+    }
+
+    /**
+     * Returns a validation that passes only if all the given validations pass.
+     * <p>
+     * The first failure in argument order is returned, as with {@link UserValidation#all}.
+     *
+     * @param validations array of validations
+     * @return a combined {@code UserValidation} that passes if all given validations pass
+     */
+    public UserValidation all(UserValidation... validations) {
+        if (validations == null) {
+            throw new IllegalArgumentException("Validations must not be null");
+        }
+
+        UserValidation combined = user -> {
+            List<FutureTask<ValidationResult>> tasks = submitExpensive(validations, user);
+            try {
+                for (int i = 0; i < validations.length; i++) {
+                    if (validations[i] == null) {
+                        return new Invalid("Validation cannot be null");
+                    }
+
+                    ValidationResult result = resultOf(validations[i], tasks.get(i), user);
+                    if (!result.isValid()) {
+                        return result;
+                    }
+                }
+                return new Valid();
+            } finally {
+                cancelAll(tasks);
+            }
+        };
+        return combined.withEstimatedCost(compositeCost(validations));
+    }
+
+    /**
+     * Combines two validations, Only one validation needs to pass.
+     * <p>
+     * Returns as soon as either validation passes, cancelling the other one. If both fail, the
+     * combined failure reason lists them in argument order, as {@link UserValidation#or} does.
+     * Unlike {@link UserValidation#or}, an exception thrown by the first validation is ignored
+     * when the second one passes; otherwise exceptions surface as in the sequential version.
+     *
+     * @param first  the validation checked first
+     * @param second the validation checked if the first one fails
+     * @return a combined {@code UserValidation} that passes if at least one validation passes
+     */
+    public UserValidation or(UserValidation first, UserValidation second) {
+        if (first == null || second == null) {
+            throw new IllegalArgumentException("Validations must not be null");
+        }
+
+        UserValidation[] validations = {first, second};
+        UserValidation combined = user -> {
+            BlockingQueue<FutureTask<ValidationResult>> finished = new LinkedBlockingQueue<>();
+            List<FutureTask<ValidationResult>> tasks = new ArrayList<>(validations.length);
+            List<FutureTask<ValidationResult>> callerTasks = new ArrayList<>(validations.length);
+            for (UserValidation validation : validations) {
+                // report each task as it finishes, so whichever rule ends first is seen first
+                FutureTask<ValidationResult> task = new FutureTask<>(() -> validation.apply(user)) {
+                    @Override
+                    protected void done() {
+                        finished.add(this);
+                    }
+                };
+                tasks.add(task);
+                if (!offload(validation, task)) {
+                    callerTasks.add(task);
+                }
+            }
+
+            boolean interrupted = false;
+            try {
+                ValidationResult[] results = new ValidationResult[validations.length];
+                ExecutionException[] failures = new ExecutionException[validations.length];
+                int done = 0;
+                while (done < tasks.size()) {
+                    FutureTask<ValidationResult> task;
+                    try {
+                        task = nextFinished(tasks, callerTasks, finished);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        continue;
+                    }
+                    int i = tasks.indexOf(task);
+                    done++;
+
+                    try {
+                        results[i] = task.get();
+                    } catch (ExecutionException e) {
+                        failures[i] = e;
+                    } catch (InterruptedException e) {
+                        // get() never waits on a finished task
+                        throw new IllegalStateException("Finished validation was interrupted", e);
+                    }
+
+                    if (failures[i] == null && results[i].isValid()) {
+                        return results[i];
+                    }
+                    // the sequential version stops at an exception from the first rule
+                    if (failures[0] != null) {
+                        throw unwrap(failures[0]);
+                    }
+                }
+
+                if (failures[1] != null) {
+                    throw unwrap(failures[1]);
+                }
+
+                // If both are invalid, return combined failure reason
+                return new Invalid("Both validations failed: " + results[0].getReason() + " | " + results[1].getReason());
+            } finally {
+                cancelAll(tasks);
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        return combined.withEstimatedCost(compositeCost(validations));
+    }
+
+    /**
+     * Combines two validations. Exactly one validation must pass.
+     * <p>
+     * Returns the same result as {@link UserValidation#xor}.
+     *
+     * @param first  the first validation
+     * @param second the second validation
+     * @return a combined validation
+     */
+    public UserValidation xor(UserValidation first, UserValidation second) {
+        if (first == null || second == null) {
+            throw new IllegalArgumentException("Validations must not be null");
+        }
+
+        UserValidation[] validations = {first, second};
+        UserValidation combined = user -> {
+            List<FutureTask<ValidationResult>> tasks = submitExpensive(validations, user);
+            try {
+                boolean a = resultOf(first, tasks.get(0), user).isValid();
+                boolean b = resultOf(second, tasks.get(1), user).isValid();
+                return a ^ b ? new Valid() : new Invalid("XOR condition failed");
+            } finally {
+                cancelAll(tasks);
+            }
+        };
+        return combined.withEstimatedCost(compositeCost(validations));
+    }
+
+    /**
+     * Starts every validation whose estimated cost reaches the threshold.
+     * Cheap or null validations get a {@code null} task and are evaluated by the caller.
+     */
+    private List<FutureTask<ValidationResult>> submitExpensive(UserValidation[] validations, User user) {
+        List<FutureTask<ValidationResult>> tasks = new ArrayList<>(validations.length);
+        boolean ended = false;
+        for (UserValidation validation : validations) {
+            // a null validation ends the sequential loop, so nothing after it is needed
+            if (validation == null) {
+                ended = true;
+            }
+            if (ended) {
+                tasks.add(null);
+                continue;
+            }
+
+            FutureTask<ValidationResult> task = new FutureTask<>(() -> validation.apply(user));
+            tasks.add(offload(validation, task) ? task : null);
+        }
+        return tasks;
+    }
+
+    /**
+     * Sends a task to the executor if its validation is expensive enough.
+     *
+     * @return {@code true} if the executor accepted the task
+     */
+    private boolean offload(UserValidation validation, FutureTask<ValidationResult> task) {
+        if (validation.estimatedCost() < costThreshold) {
+            return false;
+        }
+
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // executor is saturated or shut down - leave it to the calling thread
+            return false;
+        }
+    }
+
+    /**
+     * Returns the next task to finish. Tasks kept on the calling thread run first, in argument order.
+     * If no worker finishes in time, the caller runs a task that is still queued on the executor.
+     */
+    private static FutureTask<ValidationResult> nextFinished(List<FutureTask<ValidationResult>> tasks,
+                                                            List<FutureTask<ValidationResult>> callerTasks,
+                                                            BlockingQueue<FutureTask<ValidationResult>> finished)
+            throws InterruptedException {
+        while (true) {
+            FutureTask<ValidationResult> task = finished.poll();
+            if (task != null) {
+                return task;
+            }
+
+            if (!callerTasks.isEmpty()) {
+                callerTasks.remove(0).run();
+                continue;
+            }
+
+            task = finished.poll(STEAL_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            if (task != null) {
+                return task;
+            }
+
+            // run() is a no-op for tasks a worker already claimed
+            for (FutureTask<ValidationResult> queued : tasks) {
+                if (!queued.isDone()) {
+                    queued.run();
+                    if (queued.isDone()) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the result of a validation, waiting for it if it was started on the executor.
+     * A task that no worker has picked up yet is run by the calling thread instead.
+     */
+    private static ValidationResult resultOf(UserValidation validation, FutureTask<ValidationResult> task, User user) {
+        if (task == null) {
+            return validation.apply(user);
+        }
+
+        // no-op if a worker already claimed the task, so the caller never waits on queued work
+        task.run();
+        return awaitUninterruptibly(task);
+    }
+
+    /**
+     * Returns the result of a task, waiting for it without giving up on interrupts.
+     * Like the sequential composites, an interrupt never fails the validation; it is kept
+     * on the calling thread instead.
+     */
+    private static ValidationResult awaitUninterruptibly(FutureTask<ValidationResult> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Helper method for rethrowing what the validation itself threw, as the sequential composites do
+     */
+    private static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException("Validation failed unexpectedly", cause);
+    }
+
+    /**
+     * Estimates the cost of a composite over the given validations, skipping null ones.
+     * Rules below the threshold run one after another on the calling thread, so their costs add up,
+     * while rules sent to the executor overlap, so only the highest of them counts.
+     */
+    private long compositeCost(UserValidation[] validations) {
+        long callerCost = 0;
+        long executorCost = 0;
+        for (UserValidation validation : validations) {
+            if (validation == null) {
+                continue;
+            }
+            long cost = validation.estimatedCost();
+            if (cost < costThreshold) {
+                // saturate instead of overflowing into a negative cost
+                callerCost = cost > Long.MAX_VALUE - callerCost ? Long.MAX_VALUE : callerCost + cost;
+            } else {
+                executorCost = Math.max(executorCost, cost);
+            }
+        }
+        return Math.max(callerCost, executorCost);
+    }
+
+    /**
+     * Helper method for cancelling validations whose results are no longer needed
+     */
+    private static void cancelAll(List<FutureTask<ValidationResult>> tasks) {
+        for (FutureTask<ValidationResult> task : tasks) {
+            if (task != null) {
+                task.cancel(true);
+            }
+        }
+    }
+}
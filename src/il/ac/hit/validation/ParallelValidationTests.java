@@ -0,0 +1,398 @@
+package il.ac.hit.validation;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code ParallelValidationTests} class checks that {@code ParallelValidation} returns
+ * the same results as the sequential composites in {@code UserValidation}.
+ * <p>
+ * Run its {@code main} method; a failed check throws an {@code IllegalStateException}.
+ */
+public class ParallelValidationTests {
+    // cost given to rules that should run on the executor
+    private static final long EXPENSIVE = 100;
+    // threshold used by every ParallelValidation in these checks
+    private static final long THRESHOLD = 50;
+    // user passed to every validation
+    private static final User USER = new User("username1", "user@mail.co.il", "password1", 20);
+
+    /**
+     * Runs all the checks.
+     *
+     * @param args not used
+     * @throws Exception if a check fails or is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        testFailureOrder();
+        testMatchesSequential();
+        testRejectedExecutionFallback();
+        testCancellationAfterOr();
+        testOrReturnsEarly();
+        testExceptionHandling();
+        testInterruptedCaller();
+        testNoDeadlockOnOwnExecutor();
+        testNestedComposites();
+        testCostPropagation();
+        System.out.println("All parallel validation checks passed");
+    }
+
+    /**
+     * A later failure that finishes first must not be reported before an earlier one.
+     *
+     * @throws Exception if the check fails
+     */
+    public static void testFailureOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ParallelValidation parallel = new ParallelValidation(executor, THRESHOLD);
+            UserValidation[] rules = {
+                    expensive(200, new Invalid("first")),
+                    expensive(0, new Invalid("second")),
+                    expensive(0, new Invalid("third"))
+            };
+
+            check(sameResult(UserValidation.all(rules).apply(USER), parallel.all(rules).apply(USER)),
+                    "all must report the first failure in argument order");
+            check(parallel.all(rules).apply(USER).getReason().orElse("").equals("first"),
+                    "all must report the slow earlier failure");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Every combination of passing and failing rules gives the sequential result.
+     *
+     * @throws Exception if the check fails
+     */
+    public static void testMatchesSequential() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ParallelValidation parallel = new ParallelValidation(executor, THRESHOLD);
+            ValidationResult[] outcomes = {new Valid(), new Invalid("a"), new Invalid("b")};
+
+            for (ValidationResult x : outcomes) {
+                for (ValidationResult y : outcomes) {
+                    UserValidation first = expensive(10, x);
+                    UserValidation second = expensive(0, y);
+
+                    check(sameResult(UserValidation.all(first, second).apply(USER),
+                            parallel.all(first, second).apply(USER)), "all differs from sequential");
+                    check(sameResult(first.or(second).apply(USER),
+                            parallel.or(first, second).apply(USER)), "or differs from sequential");
+                    check(sameResult(first.xor(second).apply(USER),
+                            parallel.xor(first, second).apply(USER)), "xor differs from sequential");
+                }
+            }
+
+            // a null rule ends all() at its position, and cheap rules mix with expensive ones
+            UserValidation[] rules = {expensive(10, new Valid()), UserValidation.ageBiggerThan18(), null,
+                    expensive(0, new Invalid("after null"))};
+            check(sameResult(UserValidation.all(rules).apply(USER), parallel.all(rules).apply(USER)),
+                    "all must stop at a null validation");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Rules rejected by the executor run on the calling thread with the same results.
+     */
+    public static void testRejectedExecutionFallback() {
+        ParallelValidation parallel = new ParallelValidation(task -> {
+            throw new RejectedExecutionException("always rejects");
+        }, THRESHOLD);
+        Thread caller = Thread.currentThread();
+        UserValidation onCaller = ((UserValidation) user -> Thread.currentThread() == caller
+                ? new Valid()
+                : new Invalid("ran on another thread")).withEstimatedCost(EXPENSIVE);
+        UserValidation failing = expensive(0, new Invalid("failed"));
+
+        check(parallel.all(onCaller, onCaller).apply(USER).isValid(),
+                "rejected rules must run on the calling thread");
+        check(sameResult(UserValidation.all(onCaller, failing).apply(USER),
+                parallel.all(onCaller, failing).apply(USER)), "all differs after rejection");
+        check(sameResult(failing.or(failing).apply(USER),
+                parallel.or(failing, failing).apply(USER)), "or differs after rejection");
+    }
+
+    /**
+     * Once or() is decided by its first rule, the second rule is cancelled.
+     *
+     * @throws Exception if the check fails
+     */
+    public static void testCancellationAfterOr() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ParallelValidation parallel = new ParallelValidation(executor, THRESHOLD);
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch interrupted = new CountDownLatch(1);
+
+            // the first rule waits until the second is running, so there is something to cancel
+            UserValidation first = ((UserValidation) user -> {
+                try {
+                    started.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new Valid();
+            }).withEstimatedCost(EXPENSIVE);
+            UserValidation second = ((UserValidation) user -> {
+                started.countDown();
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return new Invalid("too slow");
+            }).withEstimatedCost(EXPENSIVE);
+
+            check(parallel.or(first, second).apply(USER).isValid(), "or must pass on its first rule");
+            check(interrupted.await(5, TimeUnit.SECONDS), "or must cancel the rule it no longer needs");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * or() passes as soon as either rule passes, without waiting for a slower first rule.
+     *
+     * @throws Exception if the check fails
+     */
+    public static void testOrReturnsEarly() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ParallelValidation parallel = new ParallelValidation(executor, THRESHOLD);
+            UserValidation slow = expensive(1000, new Valid());
+            UserValidation fast = expensive(10, new Valid());
+
+            long start = System.nanoTime();
+            ValidationResult result = parallel.or(slow, fast).apply(USER);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            check(result.isValid(), "or must pass when either rule passes");
+            check(elapsedMillis < 500, "or must not wait for the slow first rule, took " + elapsedMillis + "ms");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Exceptions are rethrown only when the sequential composite would have reached them.
+     *
+     * @throws Exception if the check fails
+     */
+    public static void testExceptionHandling() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ParallelValidation parallel = new ParallelValidation(executor, THRESHOLD);
+            IllegalStateException boom = new IllegalStateException("boom");
+            UserValidation throwing = ((UserValidation) user -> {
+                throw boom;
+            }).withEstimatedCost(EXPENSIVE);
+
+            // the failure comes first, so the exception is never needed
+            UserValidation failing = expensive(50, new Invalid("first"));
+            check(sameResult(UserValidation.all(failing, throwing).apply(USER),
+                    parallel.all(failing, throwing).apply(USER)), "an unneeded exception must be ignored");
+            check(sameResult(failing.and(throwing).apply(USER),
+                    parallel.all(failing, throwing).apply(USER)), "an unneeded exception must be ignored");
+
+            // the exception is reached, so the same instance must come out
+            UserValidation passing = expensive(50, new Valid());
+            check(thrownBy(parallel.all(passing, throwing)) == boom, "all must rethrow the rule's exception");
+            check(thrownBy(parallel.xor(passing, throwing)) == boom, "xor must rethrow the rule's exception");
+            check(thrownBy(parallel.or(throwing, expensive(500, new Valid()))) == boom,
+                    "or must rethrow the first rule's exception");
+            check(thrownBy(parallel.or(failing, throwing)) == boom, "or must rethrow the second rule's exception");
+            check(sameResult(passing.or(throwing).apply(USER), parallel.or(passing, throwing).apply(USER)),
+                    "or must ignore an exception after its first rule passed");
+
+            // documented difference: a passing second rule wins over a later exception from the first
+            UserValidation slowThrowing = ((UserValidation) user -> {
+                sleepUninterruptibly(300);
+                throw boom;
+            }).withEstimatedCost(EXPENSIVE);
+            check(parallel.or(slowThrowing, expensive(0, new Valid())).apply(USER).isValid(),
+                    "or must pass as soon as its second rule passes");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Interrupting the caller while it waits gives the sequential result and keeps the interrupt.
+     *
+     * @throws Exception if the check fails
+     */
+    public static void testInterruptedCaller() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ParallelValidation parallel = new ParallelValidation(executor, THRESHOLD);
+            // the rules ignore interrupts so only the caller's waiting is affected
+            UserValidation first = ((UserValidation) user -> {
+                sleepUninterruptibly(300);
+                return new Invalid("a");
+            }).withEstimatedCost(EXPENSIVE);
+            UserValidation second = ((UserValidation) user -> {
+                sleepUninterruptibly(600);
+                return new Valid();
+            }).withEstimatedCost(EXPENSIVE);
+            Thread caller = Thread.currentThread();
+            // interrupt the caller while it is waiting on the executor
+            Thread interrupter = new Thread(() -> {
+                sleepUninterruptibly(100);
+                caller.interrupt();
+            });
+
+            interrupter.start();
+            try {
+                ValidationResult result = parallel.xor(first, second).apply(USER);
+                check(sameResult(first.xor(second).apply(USER), result), "xor differs after an interrupt");
+                check(Thread.interrupted(), "the caller's interrupt must be kept");
+            } finally {
+                interrupter.join();
+                Thread.interrupted();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A composite applied on a thread of its own single-thread executor must not hang.
+     *
+     * @throws Exception if the check fails
+     */
+    public static void testNoDeadlockOnOwnExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            ParallelValidation parallel = new ParallelValidation(executor, THRESHOLD);
+            UserValidation rule = expensive(10, new Valid());
+            Future<ValidationResult> result = executor.submit(() -> parallel.all(rule, rule).apply(USER));
+
+            check(result.get(5, TimeUnit.SECONDS).isValid(), "composite on its own executor must pass");
+
+            UserValidation failing = expensive(10, new Invalid("failed"));
+            Future<ValidationResult> orResult = executor.submit(() -> parallel.or(failing, failing).apply(USER));
+            check(sameResult(failing.or(failing).apply(USER), orResult.get(5, TimeUnit.SECONDS)),
+                    "or on its own executor must match the sequential result");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Parallel composites nested inside each other must not hang on a small executor.
+     *
+     * @throws Exception if the check fails
+     */
+    public static void testNestedComposites() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            ParallelValidation parallel = new ParallelValidation(executor, THRESHOLD);
+            UserValidation rule = expensive(10, new Valid());
+            UserValidation nested = parallel.all(parallel.all(rule, rule), parallel.all(rule, rule));
+            Future<ValidationResult> result = caller.submit(() -> nested.apply(USER));
+
+            check(result.get(5, TimeUnit.SECONDS).isValid(), "nested composites must pass");
+        } finally {
+            executor.shutdownNow();
+            caller.shutdownNow();
+        }
+    }
+
+    /**
+     * Composites keep the estimated cost of their parts.
+     */
+    public static void testCostPropagation() {
+        ParallelValidation parallel = new ParallelValidation(Runnable::run, THRESHOLD);
+        UserValidation rule = expensive(0, new Valid());
+
+        check(rule.and(rule).estimatedCost() == 2 * EXPENSIVE, "and must sum costs");
+        check(UserValidation.userNotNull().and(rule).estimatedCost() == EXPENSIVE, "and must keep the cost");
+        check(UserValidation.all(rule, null, rule).estimatedCost() == 2 * EXPENSIVE, "all must sum costs");
+        check(UserValidation.none(rule, null, rule).estimatedCost() == 2 * EXPENSIVE, "none must sum costs");
+        check(parallel.all(rule, rule).estimatedCost() == EXPENSIVE,
+                "parallel all must count overlapping executor rules once");
+
+        // rules below the threshold run one after another on the caller, so their costs add up
+        UserValidation cheap = rule.withEstimatedCost(THRESHOLD - 10);
+        check(parallel.all(cheap, cheap, cheap).estimatedCost() == 3 * (THRESHOLD - 10),
+                "parallel all must sum the costs of rules run on the caller");
+        check(parallel.or(cheap, rule).estimatedCost() == EXPENSIVE,
+                "parallel or must take the larger of the caller and executor costs");
+        check(parallel.xor(cheap, cheap).estimatedCost() == 2 * (THRESHOLD - 10),
+                "parallel xor must sum the costs of rules run on the caller");
+        check(UserValidation.emailEndsWithIL().estimatedCost() == 0, "built-in rules must stay cheap");
+        check(rule.withEstimatedCost(Long.MAX_VALUE).or(rule).estimatedCost() == Long.MAX_VALUE,
+                "cost must not overflow");
+    }
+
+    /**
+     * Helper method for creating an expensive rule that sleeps and then returns the given result
+     */
+    private static UserValidation expensive(long millis, ValidationResult result) {
+        return ((UserValidation) user -> {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Invalid("interrupted");
+            }
+            return result;
+        }).withEstimatedCost(EXPENSIVE);
+    }
+
+    /**
+     * Helper method for sleeping without reacting to interrupts
+     */
+    private static void sleepUninterruptibly(long millis) {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        boolean interrupted = false;
+        while (System.nanoTime() < end) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(end - System.nanoTime());
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Helper method for comparing two results by validity and reason
+     */
+    private static boolean sameResult(ValidationResult expected, ValidationResult actual) {
+        return expected.isValid() == actual.isValid() && expected.getReason().equals(actual.getReason());
+    }
+
+    /**
+     * Helper method for capturing the exception thrown by a validation, or null if none
+     */
+    private static RuntimeException thrownBy(UserValidation validation) {
+        try {
+            validation.apply(USER);
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Helper method for failing a check with a message
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("Check failed: " + message);
+        }
+    }
+}
@@ -8,6 +8,49 @@ import java.util.function.Function;
  */
 public interface UserValidation extends Function<User, ValidationResult> {
 
+    /**
+     * Returns an estimate of how expensive this validation is to evaluate.
+     * <p>
+     * The estimate is used by {@code ParallelValidation} to decide which rules are worth
+     * running on another thread. Plain rules are considered cheap and return {@code 0}.
+     * The composites built by {@code and}, {@code or}, {@code xor}, {@code all} and {@code none}
+     * report the sum of their parts' costs.
+     *
+     * @return the estimated cost of this validation, never negative
+     */
+    default long estimatedCost() {
+        return 0;
+    }
+
+    /**
+     * Returns a validation that behaves exactly like this one but reports the given estimated cost.
+     *
+     * @param cost the estimated cost of evaluating this validation
+     * @return a {@code UserValidation} with the given estimated cost, or this validation if it already reports it
+     * @throws IllegalArgumentException if {@code cost} is negative
+     */
+    default UserValidation withEstimatedCost(long cost) {
+        if (cost < 0) {
+            throw new IllegalArgumentException("Estimated cost must not be negative");
+        }
+        if (cost == estimatedCost()) {
+            return this;
+        }
+
+        UserValidation self = this;
+        return new UserValidation() {
+            @Override
+            public ValidationResult apply(User user) {
+                return self.apply(user);
+            }
+
+            @Override
+            public long estimatedCost() {
+                return cost;
+            }
+        };
+    }
+
     /**
      * Combines two validations, Both validations must pass for the result to be valid.
      *
@@ -19,7 +62,7 @@ public interface UserValidation extends Function<User, ValidationResult> {
             throw new IllegalArgumentException("Other validation must not be null");
         }
 
-        return user -> {
+        UserValidation combined = user -> {
             ValidationResult first = this.apply(user);
             if (!first.isValid()) {
                 return first;
@@ -27,6 +70,7 @@ public interface UserValidation extends Function<User, ValidationResult> {
 
             return other.apply(user);
         };
+        return combined.withEstimatedCost(sumCosts(this, other));
     }
 
     /**
@@ -40,7 +84,7 @@ public interface UserValidation extends Function<User, ValidationResult> {
             throw new IllegalArgumentException("Other validation must not be null");
         }
 
-        return user -> {
+        UserValidation combined = user -> {
             ValidationResult first = this.apply(user);
             if (first.isValid()) {
                 return first;
@@ -54,6 +98,7 @@ public interface UserValidation extends Function<User, ValidationResult> {
             // If both are invalid, return combined failure reason
             return new Invalid("Both validations failed: " + first.getReason() + " | " + second.getReason());
         };
+        return combined.withEstimatedCost(sumCosts(this, other));
     }
 
     /**
@@ -67,11 +112,12 @@ public interface UserValidation extends Function<User, ValidationResult> {
             throw new IllegalArgumentException("Other validation must not be null");
         }
 
-        return user -> {
+        UserValidation combined = user -> {
             boolean a = this.apply(user).isValid();
             boolean b = other.apply(user).isValid();
             return a ^ b ? new Valid() : new Invalid("XOR condition failed");
         };
+        return combined.withEstimatedCost(sumCosts(this, other));
     }
 
     /**
@@ -85,7 +131,7 @@ public interface UserValidation extends Function<User, ValidationResult> {
             throw new IllegalArgumentException("Validations must not be null");
         }
 
-        return user -> {
+        UserValidation combined = user -> {
             for (UserValidation validation : validations) {
                 if (validation == null) {
                     return new Invalid("Validation cannot be null");
@@ -98,6 +144,7 @@ public interface UserValidation extends Function<User, ValidationResult> {
             }
             return new Valid();
         };
+        return combined.withEstimatedCost(sumCosts(validations));
     }
 
     /**
@@ -111,7 +158,7 @@ public interface UserValidation extends Function<User, ValidationResult> {
             throw new IllegalArgumentException("Validations must not be null");
         }
 
-        return user -> {
+        UserValidation combined = user -> {
             for (UserValidation validation : validations) {
                 if (validation == null) {
                     return new Invalid("Validation cannot be null");
@@ -124,6 +171,7 @@ public interface UserValidation extends Function<User, ValidationResult> {
             }
             return new Valid();
         };
+        return combined.withEstimatedCost(sumCosts(validations));
     }
 
     /**
@@ -248,4 +296,19 @@ public interface UserValidation extends Function<User, ValidationResult> {
         });
     }
 
+    /**
+     * Helper method for adding up the estimated costs of validations, skipping null ones
+     */
+    private static long sumCosts(UserValidation... validations) {
+        long total = 0;
+        for (UserValidation validation : validations) {
+            if (validation != null) {
+                long cost = validation.estimatedCost();
+                // saturate instead of overflowing into a negative cost
+                total = cost > Long.MAX_VALUE - total ? Long.MAX_VALUE : total + cost;
+            }
+        }
+        return total;
+    }
+
 }
\ No newline at end of file